@@ -0,0 +1,581 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.android;
+
+import java.math.RoundingMode;
+import java.util.List;
+
+/**
+ * Applies discounts, tax and tip presets to a {@linkplain Bill bill} using
+ * exact integer arithmetic. Rates are specified in basis points; for example,
+ * an 8.25% tax rate is {@code 825}. Bill-level discounts and tax are rounded
+ * once and then allocated back to individual line items using the largest
+ * remainder method, so the item amounts always add up to the bill amounts.
+ *
+ * <p>Amounts are computed in this order:
+ *
+ * <ol>
+ *   <li>The {@linkplain Builder#percentDiscount percentage discount} is taken
+ *      off the subtotal.</li>
+ *   <li>The {@linkplain Builder#fixedDiscount fixed discount} is taken off
+ *      what remains, up to the remaining amount.</li>
+ *   <li>{@linkplain Builder#taxRates Tax} is computed on the discounted
+ *      amount of each item at that item's rate. The exact sum is rounded
+ *      once for the bill.</li>
+ *   <li>{@linkplain Builder#tipRates Tips} are computed on the discounted
+ *      amount before tax.</li>
+ * </ol>
+ *
+ * <p>Instances are immutable and thread safe. Results are written to a
+ * caller-supplied {@link Totals} which can be reused across calculations,
+ * so recomputing a bill after every edit doesn't allocate.
+ *
+ * @see Builder
+ */
+public final class Calculator {
+
+  /** Basis points in 100%. */
+  public static final int ONE_HUNDRED_PERCENT = 10000;
+
+  /** Maximum number of items supported by a single calculation. */
+  public static final int MAX_ITEMS = 1 << 16;
+
+  /*
+   * Note: Largest remainder allocation selects among (remainder, index) pairs
+   * packed into longs, which makes every key unique. Remainders are less
+   * than the divisor, which is at most MAX_ITEMS * Money.MAX_AMOUNT < 2^46,
+   * leaving 16 bits for the index.
+   */
+
+  private static final int INDEX_BITS = 16;
+  private static final long MAX_INDEX = MAX_ITEMS - 1;
+
+  private final int percentDiscount;
+  private final long fixedDiscount;
+  private final Currency currency;
+  private final int[] taxRates;
+  private final int[] tipRates;
+  private final RoundingMode rounding;
+
+  private Calculator(Builder builder) {
+    this.percentDiscount = builder.percentDiscount;
+    this.fixedDiscount = builder.fixedDiscount == null
+        ? 0 : builder.fixedDiscount.amount();
+    this.currency = builder.fixedDiscount == null
+        ? null : builder.fixedDiscount.currency();
+    this.taxRates = builder.taxRates;
+    this.tipRates = builder.tipRates;
+    this.rounding = builder.rounding;
+  }
+
+  /**
+   * Computes the totals for the given bill. Every item is taxed at the first
+   * {@linkplain Builder#taxRates tax rate}.
+   *
+   * @param bill to compute totals for
+   * @param totals receives the results
+   * @return totals
+   * @throws IllegalArgumentException if the bill's items don't share a
+   *  currency with each other and with the fixed discount
+   * @throws NullPointerException if bill or totals is null
+   * @throws ArithmeticException if the rounding mode is {@link
+   *  RoundingMode#UNNECESSARY} and rounding is necessary
+   */
+  public Totals calculate(Bill bill, Totals totals) {
+    if (bill == null) throw new NullPointerException("bill");
+    if (totals == null) throw new NullPointerException("totals");
+    List<LineItem> lineItems = bill.lineItems();
+    int count = lineItems.size();
+    totals.ensureCapacity(count);
+    long[] prices = totals.prices;
+    Currency expected = currency;
+    for (int i = 0; i < count; i++) {
+      Money price = lineItems.get(i).price();
+      if (expected == null) {
+        expected = price.currency();
+      } else if (price.currency() != expected) {
+        throw new IllegalArgumentException("mixed currencies");
+      }
+      prices[i] = price.amount();
+    }
+    return calculate(prices, count, totals);
+  }
+
+  /**
+   * Convenience method, equivalent to {@code calculate(prices, null, count,
+   * totals)}. Every item is taxed at the first {@linkplain Builder#taxRates
+   * tax rate}.
+   */
+  public Totals calculate(long[] prices, int count, Totals totals) {
+    return calculate(prices, null, count, totals);
+  }
+
+  /**
+   * Computes the totals for {@code count} items with the given prices. Prices
+   * are in atomic units of a single currency.
+   *
+   * @param prices of the items, each {@code >= 0 && <=} {@link
+   *  Money#MAX_AMOUNT}
+   * @param taxRateIndexes index into {@link Builder#taxRates} for each item,
+   *  or null to tax every item at the first rate
+   * @param count number of prices to read, {@code <=} {@link #MAX_ITEMS}
+   * @param totals receives the results
+   * @return totals
+   * @throws IllegalArgumentException if count, a price or a tax rate index
+   *  is out of range
+   * @throws NullPointerException if prices or totals is null
+   * @throws ArithmeticException if the rounding mode is {@link
+   *  RoundingMode#UNNECESSARY} and rounding is necessary
+   */
+  public Totals calculate(long[] prices, int[] taxRateIndexes, int count,
+      Totals totals) {
+    if (prices == null) throw new NullPointerException("prices");
+    if (totals == null) throw new NullPointerException("totals");
+    if (count < 0) throw new IllegalArgumentException("count < 0");
+    if (count > prices.length) {
+      throw new IllegalArgumentException("count > prices.length");
+    }
+    if (taxRateIndexes != null && count > taxRateIndexes.length) {
+      throw new IllegalArgumentException("count > taxRateIndexes.length");
+    }
+    if (count > MAX_ITEMS) {
+      throw new IllegalArgumentException("count > MAX_ITEMS");
+    }
+
+    totals.ensureCapacity(count);
+    if (totals.tips.length < tipRates.length) {
+      totals.tips = new long[tipRates.length];
+    }
+    long[] discounts = totals.itemDiscounts;
+    long[] taxes = totals.itemTaxes;
+    long[] amounts = totals.amounts;
+    long[] scratch = totals.scratch;
+
+    long subtotal = 0;
+    for (int i = 0; i < count; i++) {
+      long price = prices[i];
+      if (price < 0) throw new IllegalArgumentException("price < 0");
+      if (price > Money.MAX_AMOUNT) {
+        throw new IllegalArgumentException("price > Money.MAX_AMOUNT");
+      }
+      subtotal += price;
+      if (taxRateIndexes != null) {
+        int index = taxRateIndexes[i];
+        if (index < 0 || index >= taxRates.length) {
+          throw new IllegalArgumentException("tax rate index = " + index);
+        }
+      }
+    }
+
+    // Percentage discount.
+    long discount = divide(subtotal * percentDiscount, ONE_HUNDRED_PERCENT,
+        rounding);
+    allocate(prices, count, percentDiscount, ONE_HUNDRED_PERCENT, discount,
+        discounts, scratch);
+    long remaining = subtotal - discount;
+    for (int i = 0; i < count; i++) {
+      amounts[i] = prices[i] - discounts[i];
+    }
+
+    // Fixed discount, proportional to what remains of each item. Borrows
+    // taxes to hold the shares.
+    long fixed = Math.min(fixedDiscount, remaining);
+    if (fixed > 0) {
+      allocate(amounts, count, fixed, remaining, fixed, taxes, scratch);
+      for (int i = 0; i < count; i++) {
+        amounts[i] -= taxes[i];
+        discounts[i] += taxes[i];
+      }
+      discount += fixed;
+      remaining -= fixed;
+    }
+
+    // Tax on the discounted amounts, at each item's rate. The products go
+    // into taxes, which allocate() reads before overwriting each element.
+    long exactTax = 0;
+    for (int i = 0; i < count; i++) {
+      int rate = taxRates[taxRateIndexes == null ? 0 : taxRateIndexes[i]];
+      taxes[i] = amounts[i] * rate;
+      exactTax += taxes[i];
+    }
+    long tax = divide(exactTax, ONE_HUNDRED_PERCENT, rounding);
+    allocate(taxes, count, 1, ONE_HUNDRED_PERCENT, tax, taxes, scratch);
+
+    // Tips on the discounted amount before tax.
+    long[] tips = totals.tips;
+    for (int i = 0; i < tipRates.length; i++) {
+      tips[i] = divide(remaining * tipRates[i], ONE_HUNDRED_PERCENT, rounding);
+    }
+
+    totals.count = count;
+    totals.tipCount = tipRates.length;
+    totals.subtotal = subtotal;
+    totals.discount = discount;
+    totals.tax = tax;
+    return totals;
+  }
+
+  /**
+   * Allocates {@code total} across items in proportion to {@code weights[i] *
+   * multiplier / divisor}. Each item gets the floor of its exact share, and
+   * the units left over go to the items with the largest remainders, ties
+   * going to the earlier item.
+   */
+  private static void allocate(long[] weights, int count, long multiplier,
+      long divisor, long total, long[] out, long[] scratch) {
+    long allocated = 0;
+    for (int i = 0; i < count; i++) {
+      long product = weights[i] * multiplier;
+      long share = product / divisor;
+      out[i] = share;
+      allocated += share;
+      long remainder = product - share * divisor;
+      scratch[i] = (remainder << INDEX_BITS) | (MAX_INDEX - i);
+    }
+
+    long leftover = total - allocated;
+    if (leftover == 0) return;
+    if (leftover < 0 || leftover > count) {
+      throw new AssertionError("leftover = " + leftover);
+    }
+    int first = count - (int) leftover;
+    select(scratch, count, first);
+    for (int i = first; i < count; i++) {
+      out[(int) (MAX_INDEX - (scratch[i] & MAX_INDEX))]++;
+    }
+  }
+
+  /**
+   * Partially orders the first {@code count} keys in place so that the key
+   * at index {@code k} is where it would be if the keys were sorted, and the
+   * keys after it are greater. Unlike a full sort, never allocates.
+   */
+  private static void select(long[] keys, int count, int k) {
+    int left = 0;
+    int right = count - 1;
+    while (right > left) {
+      // Median of three pivot, moved to the right end.
+      int middle = (left + right) >>> 1;
+      if (keys[middle] < keys[left]) swap(keys, middle, left);
+      if (keys[right] < keys[left]) swap(keys, right, left);
+      if (keys[middle] < keys[right]) swap(keys, middle, right);
+      long pivot = keys[right];
+
+      int store = left;
+      for (int i = left; i < right; i++) {
+        if (keys[i] < pivot) swap(keys, i, store++);
+      }
+      swap(keys, store, right);
+
+      if (store == k) return;
+      if (store < k) {
+        left = store + 1;
+      } else {
+        right = store - 1;
+      }
+    }
+  }
+
+  private static void swap(long[] keys, int i, int j) {
+    long temp = keys[i];
+    keys[i] = keys[j];
+    keys[j] = temp;
+  }
+
+  /**
+   * Divides a non-negative numerator by a positive divisor, rounding the
+   * quotient with the given mode.
+   */
+  static long divide(long numerator, long divisor, RoundingMode rounding) {
+    long quotient = numerator / divisor;
+    long remainder = numerator - quotient * divisor;
+    if (remainder == 0) return quotient;
+    switch (rounding) {
+      case DOWN:
+      case FLOOR:
+        return quotient;
+      case UP:
+      case CEILING:
+        return quotient + 1;
+      case HALF_UP:
+        return remainder * 2 >= divisor ? quotient + 1 : quotient;
+      case HALF_DOWN:
+        return remainder * 2 > divisor ? quotient + 1 : quotient;
+      case HALF_EVEN:
+        long twice = remainder * 2;
+        return twice > divisor || (twice == divisor && (quotient & 1) != 0)
+            ? quotient + 1 : quotient;
+      case UNNECESSARY:
+        throw new ArithmeticException("rounding necessary");
+      default:
+        throw new AssertionError(rounding);
+    }
+  }
+
+  /**
+   * Builds a {@linkplain Calculator calculator}. All attributes are optional.
+   * By default, nothing is discounted, taxed or tipped, and amounts are
+   * rounded using {@link RoundingMode#HALF_EVEN}.
+   */
+  public static final class Builder {
+
+    private int percentDiscount;
+    private boolean percentDiscountSet;
+
+    /**
+     * Specifies a discount off the subtotal.
+     *
+     * @param rate in basis points, {@code >= 0 && <=} {@link
+     *  #ONE_HUNDRED_PERCENT}
+     * @throws IllegalStateException if the percentage discount is already set
+     * @throws IllegalArgumentException if rate is out of range
+     * @return this builder
+     */
+    public Builder percentDiscount(int rate) {
+      if (percentDiscountSet) alreadySet("percentage discount");
+      checkRate(rate);
+      this.percentDiscount = rate;
+      this.percentDiscountSet = true;
+      return this;
+    }
+
+    private Money fixedDiscount;
+
+    /**
+     * Specifies a fixed discount taken off after the percentage discount. The
+     * discount never exceeds the remaining amount.
+     *
+     * @param discount amount, in the same currency as the bill
+     * @throws IllegalStateException if the fixed discount is already set
+     * @throws NullPointerException if discount is null
+     * @return this builder
+     */
+    public Builder fixedDiscount(Money discount) {
+      if (this.fixedDiscount != null) alreadySet("fixed discount");
+      if (discount == null) throw new NullPointerException("discount");
+      this.fixedDiscount = discount;
+      return this;
+    }
+
+    private int[] taxRates = { 0 };
+    private boolean taxRatesSet;
+
+    /**
+     * Convenience method, equivalent to {@code taxRates(rate)}. Use when every
+     * item is taxed at the same rate.
+     */
+    public Builder taxRate(int rate) {
+      return taxRates(rate);
+    }
+
+    /**
+     * Specifies a table of tax rates applied to the discounted amounts, for
+     * example a general rate and a reduced rate for food. Each item is taxed
+     * at the rate its index selects; see {@link Calculator#calculate(long[],
+     * int[], int, Totals)}. Items are taxed at the first rate by default.
+     *
+     * @param rates in basis points, each {@code >= 0 && <=} {@link
+     *  #ONE_HUNDRED_PERCENT}
+     * @throws IllegalStateException if the tax rates are already set
+     * @throws IllegalArgumentException if no rates are given or a rate is out
+     *  of range
+     * @throws NullPointerException if rates is null
+     * @return this builder
+     */
+    public Builder taxRates(int... rates) {
+      if (taxRatesSet) alreadySet("tax rates");
+      if (rates == null) throw new NullPointerException("rates");
+      if (rates.length == 0) throw new IllegalArgumentException("no rates");
+      for (int rate : rates) checkRate(rate);
+      this.taxRates = rates.clone();
+      this.taxRatesSet = true;
+      return this;
+    }
+
+    private int[] tipRates = new int[0];
+    private boolean tipRatesSet;
+
+    /**
+     * Specifies tip presets, for example 15%, 18% and 20%. Tips are computed
+     * on the discounted amount before tax.
+     *
+     * @param rates in basis points, each {@code >= 0 && <=} {@link
+     *  #ONE_HUNDRED_PERCENT}
+     * @throws IllegalStateException if the tip rates are already set
+     * @throws IllegalArgumentException if a rate is out of range
+     * @throws NullPointerException if rates is null
+     * @return this builder
+     */
+    public Builder tipRates(int... rates) {
+      if (tipRatesSet) alreadySet("tip rates");
+      if (rates == null) throw new NullPointerException("rates");
+      for (int rate : rates) checkRate(rate);
+      this.tipRates = rates.clone();
+      this.tipRatesSet = true;
+      return this;
+    }
+
+    private RoundingMode rounding = RoundingMode.HALF_EVEN;
+    private boolean roundingSet;
+
+    /**
+     * Specifies how bill-level amounts are rounded to atomic currency units.
+     *
+     * @param rounding mode
+     * @throws IllegalStateException if the rounding mode is already set
+     * @throws NullPointerException if rounding is null
+     * @return this builder
+     */
+    public Builder rounding(RoundingMode rounding) {
+      if (roundingSet) alreadySet("rounding");
+      if (rounding == null) throw new NullPointerException("rounding");
+      this.rounding = rounding;
+      this.roundingSet = true;
+      return this;
+    }
+
+    private static void checkRate(int rate) {
+      if (rate < 0) throw new IllegalArgumentException("rate < 0");
+      if (rate > ONE_HUNDRED_PERCENT) {
+        throw new IllegalArgumentException("rate > ONE_HUNDRED_PERCENT");
+      }
+    }
+
+    private void alreadySet(String name) {
+      throw new IllegalStateException(name + " is already set.");
+    }
+
+    /**
+     * Builds the calculator.
+     */
+    public Calculator build() {
+      return new Calculator(this);
+    }
+  }
+
+  /**
+   * Results of a {@linkplain Calculator calculation}. Reuse an instance to
+   * avoid allocating on every calculation. Not thread safe.
+   */
+  public static final class Totals {
+
+    private long[] prices = new long[0];
+    private long[] amounts = new long[0];
+    private long[] itemDiscounts = new long[0];
+    private long[] itemTaxes = new long[0];
+    private long[] scratch = new long[0];
+    private long[] tips = new long[0];
+
+    private int count;
+    private int tipCount;
+    private long subtotal;
+    private long discount;
+    private long tax;
+
+    private void ensureCapacity(int count) {
+      if (prices.length < count) {
+        int capacity = Math.max(count, prices.length * 2);
+        prices = new long[capacity];
+        amounts = new long[capacity];
+        itemDiscounts = new long[capacity];
+        itemTaxes = new long[capacity];
+        scratch = new long[capacity];
+      }
+    }
+
+    /**
+     * Returns the number of items in the last calculation.
+     */
+    public int itemCount() {
+      return count;
+    }
+
+    /**
+     * Returns the sum of the item prices.
+     */
+    public long subtotal() {
+      return subtotal;
+    }
+
+    /**
+     * Returns the combined percentage and fixed discount.
+     */
+    public long discount() {
+      return discount;
+    }
+
+    /**
+     * Returns the tax on the discounted amount.
+     */
+    public long tax() {
+      return tax;
+    }
+
+    /**
+     * Returns the discounted amount plus tax, excluding tip.
+     */
+    public long total() {
+      return subtotal - discount + tax;
+    }
+
+    /**
+     * Returns the number of tip presets.
+     */
+    public int tipCount() {
+      return tipCount;
+    }
+
+    /**
+     * Returns the tip for the given preset.
+     *
+     * @param preset index into {@link Builder#tipRates}
+     * @throws IndexOutOfBoundsException if preset is out of range
+     */
+    public long tip(int preset) {
+      if (preset < 0 || preset >= tipCount) {
+        throw new IndexOutOfBoundsException("preset = " + preset);
+      }
+      return tips[preset];
+    }
+
+    /**
+     * Returns the share of the {@linkplain #discount discount} allocated to
+     * the given item.
+     *
+     * @throws IndexOutOfBoundsException if item is out of range
+     */
+    public long itemDiscount(int item) {
+      checkItem(item);
+      return itemDiscounts[item];
+    }
+
+    /**
+     * Returns the share of the {@linkplain #tax tax} allocated to the given
+     * item.
+     *
+     * @throws IndexOutOfBoundsException if item is out of range
+     */
+    public long itemTax(int item) {
+      checkItem(item);
+      return itemTaxes[item];
+    }
+
+    private void checkItem(int item) {
+      if (item < 0 || item >= count) {
+        throw new IndexOutOfBoundsException("item = " + item);
+      }
+    }
+
+    @Override public String toString() {
+      StringBuilder builder = new StringBuilder("Totals{")
+          .append("subtotal=").append(subtotal)
+          .append(", discount=").append(discount)
+          .append(", tax=").append(tax)
+          .append(", tips=[");
+      for (int i = 0; i < tipCount; i++) {
+        if (i > 0) builder.append(", ");
+        builder.append(tips[i]);
+      }
+      return builder.append("]}").toString();
+    }
+  }
+}
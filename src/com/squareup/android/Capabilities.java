@@ -0,0 +1,113 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.android;
+
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Limits of the installed version of Square. Callers can {@linkplain #adapt
+ * adapt} a bill to them before requesting payment, rather than having Square
+ * reject it after the user has already switched to it.
+ *
+ * @see Square#capabilities
+ * @see SquareClient#capabilities
+ */
+public final class Capabilities {
+
+  /*
+   * Capabilities by the first Square version code that has them, oldest
+   * first. Add a row when a new Square version changes a limit.
+   */
+
+  private static final int[] VERSIONS = { Square.MINIMUM_VERSION };
+
+  private static final Capabilities[] CAPABILITIES = {
+      // Accepts a single item with a JPEG or PNG image.
+      new Capabilities(1, EnumSet.of(Image.Type.JPEG, Image.Type.PNG))
+  };
+
+  private final int maxLineItems;
+  private final EnumSet<Image.Type> imageTypes;
+
+  private Capabilities(int maxLineItems, EnumSet<Image.Type> imageTypes) {
+    this.maxLineItems = maxLineItems;
+    this.imageTypes = imageTypes;
+  }
+
+  /**
+   * Returns the capabilities of the given Square version or null if the
+   * version doesn't support this API.
+   */
+  static Capabilities forVersion(int versionCode) {
+    for (int i = VERSIONS.length - 1; i >= 0; i--) {
+      if (versionCode >= VERSIONS[i]) return CAPABILITIES[i];
+    }
+    return null;
+  }
+
+  /**
+   * Returns the maximum number of line items per bill.
+   */
+  public int maxLineItems() {
+    return maxLineItems;
+  }
+
+  /**
+   * Returns true if Square can display images of the given type.
+   */
+  public boolean supports(Image.Type type) {
+    return imageTypes.contains(type);
+  }
+
+  /**
+   * Returns a bill that fits within these capabilities. Returns the given
+   * bill if it already fits. Otherwise, returns a copy without the images of
+   * unsupported types. Compare the result to bill to find out whether
+   * anything was dropped.
+   *
+   * @throws IllegalArgumentException if the bill has more line items than
+   *  Square supports
+   * @throws NullPointerException if bill is null
+   */
+  public Bill adapt(Bill bill) {
+    if (bill == null) throw new NullPointerException("bill");
+    List<LineItem> lineItems = bill.lineItems();
+    if (lineItems.size() > maxLineItems) {
+      // Bill.Builder doesn't support more items than Square does yet. Fold
+      // the extra items into a summary line once it does.
+      throw new IllegalArgumentException("> " + maxLineItems + " line items");
+    }
+
+    for (LineItem lineItem : lineItems) {
+      Image image = lineItem.image();
+      if (image != null && !supports(image.type())) {
+        return withoutUnsupportedImages(bill);
+      }
+    }
+    return bill;
+  }
+
+  /**
+   * Copies the given bill, dropping images of unsupported types.
+   */
+  private Bill withoutUnsupportedImages(Bill bill) {
+    Bill.Builder builder = new Bill.Builder();
+    for (LineItem lineItem : bill.lineItems()) {
+      Image image = lineItem.image();
+      if (image != null && !supports(image.type())) {
+        lineItem = new LineItem(lineItem.description(), lineItem.price(),
+            null);
+      }
+      builder.add(lineItem);
+    }
+    if (bill.defaultEmail() != null) builder.defaultEmail(bill.defaultEmail());
+    return builder.build();
+  }
+
+  @Override public String toString() {
+    return "Capabilities{" +
+        "maxLineItems=" + maxLineItems +
+        ", imageTypes=" + imageTypes +
+        '}';
+  }
+}
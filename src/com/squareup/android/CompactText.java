@@ -0,0 +1,114 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.android;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Stores strings as bytes. Strings made up entirely of characters in the
+ * Latin-1 range take one byte per character. Other well-formed strings are
+ * stored as UTF-8. Strings with unpaired surrogates, which UTF-8 can't
+ * represent, are stored as UTF-16 so that they round trip exactly. The
+ * first byte identifies the encoding.
+ */
+final class CompactText {
+
+  private static final byte LATIN_1 = 0;
+  private static final byte UTF_8 = 1;
+  private static final byte UTF_16 = 2;
+
+  private CompactText() {}
+
+  /**
+   * Encodes the given string or returns null if text is null.
+   */
+  static byte[] encode(String text) {
+    if (text == null) return null;
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      if (text.charAt(i) > 0xFF) {
+        return wellFormed(text) ? encodeUtf8(text) : encodeUtf16(text);
+      }
+    }
+    byte[] bytes = new byte[length + 1];
+    bytes[0] = LATIN_1;
+    for (int i = 0; i < length; i++) {
+      bytes[i + 1] = (byte) text.charAt(i);
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns true if every surrogate in text is part of a pair.
+   */
+  private static boolean wellFormed(String text) {
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (Character.isHighSurrogate(c)) {
+        if (i + 1 == length || !Character.isLowSurrogate(text.charAt(i + 1))) {
+          return false;
+        }
+        i++;
+      } else if (Character.isLowSurrogate(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] encodeUtf16(String text) {
+    int length = text.length();
+    byte[] bytes = new byte[length * 2 + 1];
+    bytes[0] = UTF_16;
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      bytes[i * 2 + 1] = (byte) (c >> 8);
+      bytes[i * 2 + 2] = (byte) c;
+    }
+    return bytes;
+  }
+
+  private static byte[] encodeUtf8(String text) {
+    byte[] utf8;
+    try {
+      utf8 = text.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+    byte[] bytes = new byte[utf8.length + 1];
+    bytes[0] = UTF_8;
+    System.arraycopy(utf8, 0, bytes, 1, utf8.length);
+    return bytes;
+  }
+
+  /**
+   * Decodes bytes returned by {@link #encode} or returns null if bytes is
+   * null.
+   */
+  static String decode(byte[] bytes) {
+    if (bytes == null) return null;
+    switch (bytes[0]) {
+      case LATIN_1:
+        char[] chars = new char[bytes.length - 1];
+        for (int i = 0; i < chars.length; i++) {
+          chars[i] = (char) (bytes[i + 1] & 0xFF);
+        }
+        return new String(chars);
+      case UTF_8:
+        try {
+          return new String(bytes, 1, bytes.length - 1, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+          throw new AssertionError(e);
+        }
+      case UTF_16:
+        char[] utf16 = new char[(bytes.length - 1) / 2];
+        for (int i = 0; i < utf16.length; i++) {
+          utf16[i] = (char) (((bytes[i * 2 + 1] & 0xFF) << 8)
+              | (bytes[i * 2 + 2] & 0xFF));
+        }
+        return new String(utf16);
+      default:
+        throw new AssertionError("encoding = " + bytes[0]);
+    }
+  }
+}
@@ -5,6 +5,8 @@ import android.content.Context;
 import android.net.Uri;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 /**
@@ -34,8 +36,25 @@ public final class Image implements Serializable {
     }
   }
 
-  private final String url;
-  private final Type type;
+  /*
+   * Note: The URL is kept in memory as compact bytes, but it's serialized as
+   * the original String field with the same serialVersionUID. Streams stay
+   * compatible with the Square application in both directions, although the
+   * bytes differ from the original form because of writeObject().
+   * Deserialization reads into a placeholder instance and resolves to a
+   * fully constructed one, so the fields can stay final.
+   */
+
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("url", String.class),
+      new ObjectStreamField("type", Type.class)
+  };
+
+  private final transient byte[] url;
+  private final transient Type type;
+
+  /** Set on placeholders created by deserialization. */
+  private transient Image resolved;
 
   /**
    * Constructs a new image.
@@ -47,7 +66,12 @@ public final class Image implements Serializable {
   public Image(Uri url, Type type) {
     if (url == null || type == null) throw new NullPointerException();
     this.type = type;
-    this.url = url.toString();
+    this.url = CompactText.encode(url.toString());
+  }
+
+  private Image(String url, Type type) {
+    this.type = type;
+    this.url = CompactText.encode(url);
   }
 
   /**
@@ -73,20 +97,34 @@ public final class Image implements Serializable {
    * Returns a URL that can be used to retrieve the image.
    */
   public Uri url() {
-    return Uri.parse(url);
+    return Uri.parse(CompactText.decode(url));
   }
 
   @Override public String toString() {
     return "Image{" +
         "type=" + type +
-        ", url=" + url +
+        ", url=" + CompactText.decode(url) +
         '}';
   }
 
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("url", CompactText.decode(url));
+    fields.put("type", type);
+    out.writeFields();
+  }
+
   private void readObject(ObjectInputStream in) throws IOException,
       ClassNotFoundException {
-    in.defaultReadObject();
+    ObjectInputStream.GetField fields = in.readFields();
+    String url = (String) fields.get("url", null);
+    Type type = (Type) fields.get("type", null);
     if (url == null) throw new AssertionError("missing url");
     if (type == null) throw new AssertionError("missing type");
+    resolved = new Image(url, type);
+  }
+
+  private Object readResolve() {
+    return resolved;
   }
 }
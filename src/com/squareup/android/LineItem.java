@@ -5,12 +5,15 @@ import android.content.ContentResolver;
 import android.net.Uri;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 /**
  * A line item in a {@linkplain Bill bill}.
  *
  * @see Builder
+ * @see LineItemBatch
  * @author Bob Lee (bob@squareup.com)
  */
 public final class LineItem implements Serializable {
@@ -21,14 +24,33 @@ public final class LineItem implements Serializable {
    * field down the road.
    */
 
-  private static final int MAX_DESCRIPTION_LENGTH = 140;
+  static final int MAX_DESCRIPTION_LENGTH = 140;
 
-  private final String description;
-  private final Money price;
-  private final Image image;
+  /*
+   * Note: The description is kept in memory as compact bytes, but it's
+   * serialized as the original String field with the same serialVersionUID.
+   * Streams stay compatible with the Square application in both directions,
+   * although writeObject() marks the class descriptor and ends the fields
+   * with a block marker, so the bytes differ from the original form.
+   * Deserialization reads into a placeholder instance and resolves to a
+   * fully constructed one, so the fields can stay final.
+   */
+
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("description", String.class),
+      new ObjectStreamField("price", Money.class),
+      new ObjectStreamField("image", Image.class)
+  };
+
+  private final transient byte[] description;
+  private final transient Money price;
+  private final transient Image image;
+
+  /** Set on placeholders created by deserialization. */
+  private transient LineItem resolved;
 
-  private LineItem(String description, Money price, Image image) {
-    this.description = description;
+  LineItem(String description, Money price, Image image) {
+    this.description = CompactText.encode(description);
     this.price = price;
     this.image = image;
   }
@@ -38,7 +60,7 @@ public final class LineItem implements Serializable {
    * provided.
    */
   public String description() {
-    return description;
+    return CompactText.decode(description);
   }
 
   /**
@@ -58,7 +80,7 @@ public final class LineItem implements Serializable {
 
   @Override public String toString() {
     return "LineItem{" +
-        "description='" + description + '\'' +
+        "description='" + description() + '\'' +
         ", price=" + price +
         ", image=" + image +
         '}';
@@ -185,9 +207,20 @@ public final class LineItem implements Serializable {
     }
   }
 
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("description", description());
+    fields.put("price", price);
+    fields.put("image", image);
+    out.writeFields();
+  }
+
   private void readObject(ObjectInputStream in) throws IOException,
       ClassNotFoundException {
-    in.defaultReadObject();
+    ObjectInputStream.GetField fields = in.readFields();
+    String description = (String) fields.get("description", null);
+    Money price = (Money) fields.get("price", null);
+    Image image = (Image) fields.get("image", null);
     if (price == null) throw new AssertionError("missing price");
     if (price.amount() > Integer.MAX_VALUE) {
       throw new AssertionError("price.amount() > Integer.MAX_VALUE");
@@ -195,5 +228,10 @@ public final class LineItem implements Serializable {
     if (description != null && description.length() > MAX_DESCRIPTION_LENGTH) {
       throw new AssertionError("description.length() > 140");
     }
+    resolved = new LineItem(description, price, image);
+  }
+
+  private Object readResolve() {
+    return resolved;
   }
 }
@@ -0,0 +1,323 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.android;
+
+import android.net.Uri;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * {@linkplain LineItem Line items} built from columns of attributes, for
+ * example when importing a menu. Unlike {@link LineItem.Builder}, which
+ * throws on the first invalid attribute, a batch validates every row and
+ * records each problem as a {@linkplain RowError row error}. Only valid rows
+ * become line items.
+ *
+ * @see Builder
+ */
+public final class LineItemBatch {
+
+  /** Rows validated per task when building in parallel. */
+  private static final int ROWS_PER_TASK = 4096;
+
+  private final List<LineItem> lineItems;
+  private final int[] rows;
+  private final List<RowError> errors;
+
+  private LineItemBatch(List<LineItem> lineItems, int[] rows,
+      List<RowError> errors) {
+    this.lineItems = lineItems;
+    this.rows = rows;
+    this.errors = errors;
+  }
+
+  /**
+   * Returns the line items built from valid rows, in row order.
+   */
+  public List<LineItem> lineItems() {
+    return lineItems;
+  }
+
+  /**
+   * Returns the row that the line item at the given index was built from.
+   *
+   * @param index into {@link #lineItems}
+   * @throws IndexOutOfBoundsException if index is out of range
+   */
+  public int rowOf(int index) {
+    if (index < 0 || index >= lineItems.size()) {
+      throw new IndexOutOfBoundsException("index = " + index);
+    }
+    return rows[index];
+  }
+
+  /**
+   * Returns every problem found, ordered by row. Empty if all rows are valid.
+   */
+  public List<RowError> errors() {
+    return errors;
+  }
+
+  @Override public String toString() {
+    return "LineItemBatch{" +
+        "lineItems=" + lineItems.size() +
+        ", errors=" + errors +
+        '}';
+  }
+
+  /**
+   * A problem with one attribute of one row.
+   */
+  public static final class RowError {
+
+    private final int row;
+    private final String message;
+
+    private RowError(int row, String message) {
+      this.row = row;
+      this.message = message;
+    }
+
+    /**
+     * Returns the index of the invalid row.
+     */
+    public int row() {
+      return row;
+    }
+
+    /**
+     * Returns a description of the problem.
+     */
+    public String message() {
+      return message;
+    }
+
+    @Override public String toString() {
+      return "row " + row + ": " + message;
+    }
+  }
+
+  /**
+   * Builds a {@linkplain LineItemBatch batch}. Row {@code i} of the batch
+   * consists of element {@code i} of each column. {@linkplain #prices Prices}
+   * are required. Other columns are optional. All columns must have the same
+   * length.
+   */
+  public static final class Builder {
+
+    private String[] descriptions;
+
+    /**
+     * Specifies descriptions, 140 characters max each. Null elements mean no
+     * description. Optional.
+     *
+     * @throws IllegalStateException if the descriptions are already set
+     * @throws NullPointerException if descriptions is null
+     * @return this builder
+     */
+    public Builder descriptions(String[] descriptions) {
+      if (this.descriptions != null) alreadySet("descriptions");
+      if (descriptions == null) throw new NullPointerException("descriptions");
+      this.descriptions = descriptions;
+      return this;
+    }
+
+    private long[] amounts;
+    private Currency[] currencies;
+
+    /**
+     * Specifies prices. Required.
+     *
+     * @param amounts atomic units of the corresponding currencies, {@code >= 0
+     *  && <=} {@link Money#MAX_AMOUNT}
+     * @param currencies of the amounts
+     * @throws IllegalStateException if the prices are already set
+     * @throws IllegalArgumentException if the columns have different lengths
+     * @throws NullPointerException if amounts or currencies is null
+     * @return this builder
+     */
+    public Builder prices(long[] amounts, Currency[] currencies) {
+      if (this.amounts != null) alreadySet("prices");
+      if (amounts == null) throw new NullPointerException("amounts");
+      if (currencies == null) throw new NullPointerException("currencies");
+      if (amounts.length != currencies.length) {
+        throw new IllegalArgumentException(
+            "amounts.length != currencies.length");
+      }
+      this.amounts = amounts;
+      this.currencies = currencies;
+      return this;
+    }
+
+    private Uri[] imageUrls;
+    private Image.Type[] imageTypes;
+
+    /**
+     * Specifies images. A row with a null URL and a null type has no image.
+     * Optional.
+     *
+     * @param urls of the images
+     * @param types of the images
+     * @throws IllegalStateException if the images are already set
+     * @throws IllegalArgumentException if the columns have different lengths
+     * @throws NullPointerException if urls or types is null
+     * @return this builder
+     * @see LineItem.Builder#image(Image)
+     */
+    public Builder images(Uri[] urls, Image.Type[] types) {
+      if (this.imageUrls != null) alreadySet("images");
+      if (urls == null) throw new NullPointerException("urls");
+      if (types == null) throw new NullPointerException("types");
+      if (urls.length != types.length) {
+        throw new IllegalArgumentException("urls.length != types.length");
+      }
+      this.imageUrls = urls;
+      this.imageTypes = types;
+      return this;
+    }
+
+    private void alreadySet(String name) {
+      throw new IllegalStateException(name + " is already set.");
+    }
+
+    /**
+     * Validates every row on the calling thread and builds the batch.
+     *
+     * @throws IllegalStateException if the prices weren't set or the columns
+     *  have different lengths
+     */
+    public LineItemBatch build() {
+      int rows = rows();
+      Chunk chunk = new Chunk(0, rows);
+      chunk.validate();
+      return new LineItemBatch(Collections.unmodifiableList(chunk.lineItems),
+          chunk.itemRows(), Collections.unmodifiableList(chunk.errors));
+    }
+
+    /**
+     * Splits the rows into chunks, validates the chunks using the given
+     * executor and builds the batch. Blocks until every chunk is done.
+     *
+     * @throws IllegalStateException if the prices weren't set or the columns
+     *  have different lengths
+     * @throws NullPointerException if executor is null
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public LineItemBatch build(ExecutorService executor)
+        throws InterruptedException {
+      if (executor == null) throw new NullPointerException("executor");
+      int rows = rows();
+      List<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>();
+      for (int start = 0; start < rows; start += ROWS_PER_TASK) {
+        tasks.add(new Chunk(start, Math.min(rows, start + ROWS_PER_TASK)));
+      }
+
+      List<LineItem> lineItems = new ArrayList<LineItem>(rows);
+      List<RowError> errors = new ArrayList<RowError>();
+      int[] itemRows = new int[rows];
+      for (Future<Chunk> future : executor.invokeAll(tasks)) {
+        Chunk chunk;
+        try {
+          chunk = future.get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+          if (cause instanceof Error) throw (Error) cause;
+          throw new AssertionError(cause);
+        }
+        System.arraycopy(chunk.rows, 0, itemRows, lineItems.size(),
+            chunk.lineItems.size());
+        lineItems.addAll(chunk.lineItems);
+        errors.addAll(chunk.errors);
+      }
+      int[] trimmed = new int[lineItems.size()];
+      System.arraycopy(itemRows, 0, trimmed, 0, trimmed.length);
+      return new LineItemBatch(Collections.unmodifiableList(lineItems),
+          trimmed, Collections.unmodifiableList(errors));
+    }
+
+    /** Checks that the columns line up and returns the number of rows. */
+    private int rows() {
+      if (amounts == null) throw new IllegalStateException("prices not set.");
+      int rows = amounts.length;
+      if (descriptions != null && descriptions.length != rows) {
+        throw new IllegalStateException("descriptions.length != rows");
+      }
+      if (imageUrls != null && imageUrls.length != rows) {
+        throw new IllegalStateException("images.length != rows");
+      }
+      return rows;
+    }
+
+    /** Validates and builds a range of rows. */
+    private class Chunk implements Callable<Chunk> {
+      final int start;
+      final int end;
+      final List<LineItem> lineItems;
+      final int[] rows;
+      final List<RowError> errors = new ArrayList<RowError>();
+
+      Chunk(int start, int end) {
+        this.start = start;
+        this.end = end;
+        this.lineItems = new ArrayList<LineItem>(end - start);
+        this.rows = new int[end - start];
+      }
+
+      public Chunk call() {
+        validate();
+        return this;
+      }
+
+      /** Returns the rows of the built line items. */
+      int[] itemRows() {
+        int[] trimmed = new int[lineItems.size()];
+        System.arraycopy(rows, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+      }
+
+      void validate() {
+        for (int row = start; row < end; row++) {
+          int errorCount = errors.size();
+
+          String description = descriptions == null ? null : descriptions[row];
+          if (description != null
+              && description.length() > LineItem.MAX_DESCRIPTION_LENGTH) {
+            errors.add(new RowError(row, "description > 140 chars"));
+          }
+
+          long amount = amounts[row];
+          if (amount < 0) {
+            errors.add(new RowError(row, "amount < 0"));
+          } else if (amount > Money.MAX_AMOUNT) {
+            errors.add(new RowError(row, "amount > MAX_AMOUNT"));
+          }
+          Currency currency = currencies[row];
+          if (currency == null) {
+            errors.add(new RowError(row, "missing currency"));
+          }
+
+          Uri imageUrl = imageUrls == null ? null : imageUrls[row];
+          Image.Type imageType = imageTypes == null ? null : imageTypes[row];
+          if (imageUrl == null && imageType != null) {
+            errors.add(new RowError(row, "missing image url"));
+          } else if (imageUrl != null && imageType == null) {
+            errors.add(new RowError(row, "missing image type"));
+          }
+
+          if (errors.size() == errorCount) {
+            Image image = imageUrl == null
+                ? null : new Image(imageUrl, imageType);
+            rows[lineItems.size()] = row;
+            lineItems.add(new LineItem(description,
+                new Money(amount, currency), image));
+          }
+        }
+      }
+    }
+  }
+}
@@ -50,21 +50,26 @@ import static com.squareup.android.Square.InstallationStatus.OUTDATED;
  *  }
  * </pre>
  *
+ * <p>Use {@link SquareClient} instead to share one instance across the
+ * application or to request payments from background threads.
+ *
  * @author Bob Lee (bob@squareup.com)
  */
 public final class Square {
 
   /** Minimum client version that supports this version of the API. */
-  private static final int MINIMUM_VERSION = 2;
+  static final int MINIMUM_VERSION = 2;
 
   /** Square package name. */
   private static final String PACKAGE = "com.squareup";
 
   /** Request payment action. */
-  private static final String REQUEST_PAYMENT = PACKAGE + ".REQUEST_PAYMENT";
+  static final String REQUEST_PAYMENT = PACKAGE + ".REQUEST_PAYMENT";
 
   private final Activity activity;
 
+  private Capabilities capabilities;
+
   /**
    * Constructs a new instance of this API.
    *
@@ -78,21 +83,57 @@ public final class Square {
    * Checks the status of the Square installation, if any, on this device.
    */
   public InstallationStatus installationStatus() {
+    return installationStatus(versionCode(activity.getPackageManager()));
+  }
+
+  /**
+   * Returns the capabilities of the installed version of Square or null if
+   * Square isn't {@linkplain InstallationStatus#AVAILABLE available}. Once
+   * Square is found, its capabilities are cached by this instance.
+   */
+  public Capabilities capabilities() {
+    if (capabilities == null) {
+      capabilities = Capabilities.forVersion(
+          versionCode(activity.getPackageManager()));
+    }
+    return capabilities;
+  }
+
+  /**
+   * Returns the version code of the installed Square application or -1 if
+   * Square isn't installed.
+   */
+  static int versionCode(PackageManager packageManager) {
     try {
-      PackageInfo info = activity.getPackageManager().getPackageInfo(
-          PACKAGE, 0);
-      return info.versionCode >= MINIMUM_VERSION ? AVAILABLE : OUTDATED;
+      PackageInfo info = packageManager.getPackageInfo(PACKAGE, 0);
+      return info.versionCode;
     } catch (PackageManager.NameNotFoundException e) {
-      return MISSING;
+      return -1;
     }
   }
 
+  /**
+   * Returns the status of the Square installation with the given version
+   * code.
+   */
+  static InstallationStatus installationStatus(int versionCode) {
+    if (versionCode < 0) return MISSING;
+    return versionCode >= MINIMUM_VERSION ? AVAILABLE : OUTDATED;
+  }
+
   /**
    * Navigates to Square in the Android Market.
    */
   public void requestInstallation() {
-    activity.startActivity(new Intent(Intent.ACTION_VIEW,
-        Uri.parse("market://search?q=pname:" + PACKAGE)));
+    activity.startActivity(marketIntent());
+  }
+
+  /**
+   * Creates an intent that navigates to Square in the Android Market.
+   */
+  static Intent marketIntent() {
+    return new Intent(Intent.ACTION_VIEW,
+        Uri.parse("market://search?q=pname:" + PACKAGE));
   }
 
   /**
@@ -108,7 +149,9 @@ public final class Square {
 
   /**
    * Requests a payment through Square. Starts Square and fills in the price,
-   * description, image and payer email address.
+   * description, image and payer email address. The bill is sent as is;
+   * call {@link Capabilities#adapt} first to fit it to the {@linkplain
+   * #capabilities capabilities} of the installed version of Square.
    *
    * <p>After Square finishes, Android invokes {@link
    * Activity#onActivityResult Activity.onActivityResult()} on the activity
@@ -127,12 +170,18 @@ public final class Square {
   public void squareUp(Bill bill, int requestCode) {
     if (requestCode < 0) throw new IllegalArgumentException("requestCode < 0");
     if (bill == null) throw new NullPointerException("bill");
+    activity.startActivityForResult(paymentIntent(bill), requestCode);
+  }
 
+  /**
+   * Creates an intent that requests payment of the given bill.
+   */
+  static Intent paymentIntent(Bill bill) {
     Intent intent = new Intent(REQUEST_PAYMENT);
     // The calling app should show up in "recents", not Square.
     intent.addFlags(Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS);
     intent.putExtra(BILL_KEY, bill);
-    activity.startActivityForResult(intent, requestCode);
+    return intent;
   }
 
   /**
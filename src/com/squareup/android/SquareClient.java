@@ -0,0 +1,301 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.android;
+
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import com.squareup.android.Square.InstallationStatus;
+import java.util.LinkedList;
+
+/**
+ * An application-wide alternative to {@link Square}. Unlike {@code Square},
+ * which is bound to a single activity, one client can be shared by the whole
+ * application and used from any thread, including background services.
+ *
+ * <p>The client caches the installation status and {@linkplain Capabilities
+ * capabilities} of Square and the component that handles payment requests.
+ * Call {@link #invalidate} if Square may have been installed, updated or
+ * removed since.
+ *
+ * <p>Payment requests are queued and handed off to the activity in the
+ * foreground. Activities that request payments should {@linkplain #attach
+ * attach} themselves in {@link Activity#onResume onResume()} and {@linkplain
+ * #detach detach} themselves in {@link Activity#onPause onPause()}. Square is
+ * started for one queued request each time an activity is attached, so
+ * requests queued together are presented to the user one after another. The
+ * activity that was attached when Square started receives the result in
+ * {@link Activity#onActivityResult onActivityResult()}.
+ *
+ * <p>The main thread never queries the package manager on the client's
+ * behalf; it only starts Square. If Square can't be started when a request's
+ * turn comes, for example because it was uninstalled after the request was
+ * queued, the client invalidates its cache and the request stays at the head
+ * of the queue. The failure is silent: nobody is notified. The request is
+ * retried once a call to {@link #squareUp}, {@link #installationStatus} or
+ * {@link #capabilities}, typically from a background thread, finds Square
+ * available again. Call {@link #cancelPending} to discard queued requests
+ * instead.
+ *
+ * <p>For example:
+ *
+ * <pre>
+ *  public class MyApplication extends Application {
+ *    static SquareClient square;
+ *
+ *    &#64;Override public void onCreate() {
+ *      super.onCreate();
+ *      square = new SquareClient(this);
+ *    }
+ *  }
+ *
+ *  public class MyActivity extends Activity {
+ *    &#64;Override protected void onResume() {
+ *      super.onResume();
+ *      MyApplication.square.attach(this);
+ *    }
+ *
+ *    &#64;Override protected void onPause() {
+ *      MyApplication.square.detach(this);
+ *      super.onPause();
+ *    }
+ *  }
+ * </pre>
+ *
+ * @see Square
+ */
+public final class SquareClient {
+
+  private final Context context;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  /** Cached package state or null if it must be probed again. */
+  private volatile State state;
+
+  /** Guards probing so invalidate() can't be undone by a stale probe. */
+  private final Object stateLock = new Object();
+
+  /** Guards pending and foreground. */
+  private final Object lock = new Object();
+  private final LinkedList<Request> pending = new LinkedList<Request>();
+  private Activity foreground;
+
+  /**
+   * Constructs a new client.
+   *
+   * @param context of the application; only the application context is
+   *  retained
+   * @throws NullPointerException if context is null
+   */
+  public SquareClient(Context context) {
+    if (context == null) throw new NullPointerException("context");
+    this.context = context.getApplicationContext();
+  }
+
+  /**
+   * Checks the status of the Square installation, if any, on this device.
+   * Returns a cached result after the first call.
+   *
+   * @see #invalidate
+   */
+  public InstallationStatus installationStatus() {
+    return state().installationStatus;
+  }
+
+  /**
+   * Returns the capabilities of the installed version of Square or null if
+   * Square isn't {@linkplain InstallationStatus#AVAILABLE available}. Returns
+   * a cached result after the first call.
+   *
+   * @see #invalidate
+   */
+  public Capabilities capabilities() {
+    return state().capabilities;
+  }
+
+  /**
+   * Returns the cached package state, probing the package manager if
+   * necessary.
+   */
+  private State state() {
+    State state = this.state;
+    if (state == null) {
+      synchronized (stateLock) {
+        state = this.state;
+        if (state == null) {
+          state = new State(context.getPackageManager());
+          this.state = state;
+          // Resume requests left queued while Square was unavailable.
+          mainHandler.post(dispatcher);
+        }
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Clears the cached installation status, capabilities and payment
+   * component. Call this if Square may have been installed, updated or
+   * removed.
+   */
+  public void invalidate() {
+    synchronized (stateLock) {
+      state = null;
+    }
+  }
+
+  /**
+   * Navigates to Square in the Android Market.
+   */
+  public void requestInstallation() {
+    Intent intent = Square.marketIntent();
+    intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+    context.startActivity(intent);
+  }
+
+  /**
+   * Convenience method, equivalent to {@code squareUp(bill, 0)}.
+   */
+  public void squareUp(Bill bill) {
+    squareUp(bill, 0);
+  }
+
+  /**
+   * Queues a payment request. Can be called from any thread. Square starts
+   * once an activity is {@linkplain #attach attached} and the requests queued
+   * before this one have been handed off. The bill is sent as is; call
+   * {@code capabilities().adapt(bill)} first to fit it to the {@linkplain
+   * #capabilities capabilities} of the installed version of Square. See
+   * {@link Square#squareUp(Bill, int)} for how the result is delivered.
+   *
+   * @param requestCode to pass to {@link Activity#onActivityResult}, >= 0
+   * @throws IllegalArgumentException if requestCode < 0
+   * @throws NullPointerException if bill is null
+   * @throws ActivityNotFoundException if Square is not installed or doesn't
+   *  support this version of the API when the request is queued. If Square
+   *  can't be started later, the request silently stays queued; see the
+   *  class documentation.
+   */
+  public void squareUp(Bill bill, int requestCode) {
+    if (requestCode < 0) throw new IllegalArgumentException("requestCode < 0");
+    if (bill == null) throw new NullPointerException("bill");
+
+    State state = state();
+    if (state.component == null) {
+      throw new ActivityNotFoundException("Square is not available.");
+    }
+    Intent intent = Square.paymentIntent(bill);
+    synchronized (lock) {
+      pending.add(new Request(intent, requestCode));
+    }
+    mainHandler.post(dispatcher);
+  }
+
+  /**
+   * Discards queued requests that haven't been handed off to Square yet.
+   */
+  public void cancelPending() {
+    synchronized (lock) {
+      pending.clear();
+    }
+  }
+
+  /**
+   * Makes the given activity the foreground activity and starts Square for
+   * the next queued request, if any. Call from {@link Activity#onResume}.
+   *
+   * @throws NullPointerException if activity is null
+   */
+  public void attach(Activity activity) {
+    if (activity == null) throw new NullPointerException("activity");
+    synchronized (lock) {
+      foreground = activity;
+    }
+    mainHandler.post(dispatcher);
+  }
+
+  /**
+   * Clears the foreground activity if it's the given activity. Call from
+   * {@link Activity#onPause}.
+   */
+  public void detach(Activity activity) {
+    synchronized (lock) {
+      if (foreground == activity) foreground = null;
+    }
+  }
+
+  /** Hands the next queued request off to the foreground activity. */
+  private final Runnable dispatcher = new Runnable() {
+    public void run() {
+      // Never probe on the main thread. Without a cached state, wait for
+      // another thread to probe again.
+      State state = SquareClient.this.state;
+      ComponentName component = state == null ? null : state.component;
+      Activity activity;
+      Request request;
+      synchronized (lock) {
+        activity = foreground;
+        if (activity == null || activity.isFinishing()) return;
+        // Leave requests queued until Square is available again.
+        if (component == null) return;
+        request = pending.poll();
+        if (request == null) return;
+        // Square takes over the screen. The activity attaches itself again
+        // when it resumes, which starts the next request.
+        foreground = null;
+      }
+      request.intent.setComponent(component);
+      try {
+        activity.startActivityForResult(request.intent, request.requestCode);
+      } catch (ActivityNotFoundException e) {
+        // Square went away since we resolved it. We're on the main thread,
+        // so don't throw. Put the request back and try again once another
+        // thread finds Square available.
+        invalidate();
+        synchronized (lock) {
+          pending.addFirst(request);
+          if (foreground == null) foreground = activity;
+        }
+      }
+    }
+  };
+
+  /** Package state of Square, probed all at once. */
+  private static class State {
+    final InstallationStatus installationStatus;
+
+    /** Null unless Square is available. */
+    final Capabilities capabilities;
+
+    /** Handles payment requests. Null unless Square is available. */
+    final ComponentName component;
+
+    State(PackageManager packageManager) {
+      int versionCode = Square.versionCode(packageManager);
+      InstallationStatus status = Square.installationStatus(versionCode);
+      this.capabilities = Capabilities.forVersion(versionCode);
+      if (capabilities != null) {
+        this.component = new Intent(Square.REQUEST_PAYMENT).resolveActivity(
+            packageManager);
+      } else {
+        this.component = null;
+      }
+      this.installationStatus = status;
+    }
+  }
+
+  /** A queued payment request. */
+  private static class Request {
+    final Intent intent;
+    final int requestCode;
+
+    Request(Intent intent, int requestCode) {
+      this.intent = intent;
+      this.requestCode = requestCode;
+    }
+  }
+}